@@ -0,0 +1,121 @@
+package org.altervista.scarrozzo.jredblacktree.examples;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTree;
+import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTreeCommandPipeline;
+
+/**
+ * Compare the throughput of a tree shared with synchronized blocks with the
+ * throughput of the command pipeline for a growing number of submitters. Every
+ * submitter does a mix of searches (80%), inserts and deletes on random keys;
+ * with the pipeline it keeps a window of pending futures instead of waiting for
+ * each one.
+ */
+public class RBTPipelineBenchmark {
+
+	private static final int KEY_RANGE = 1 << 20;
+	private static final int TOTAL_OPERATIONS = 1 << 21;
+	private static final int WINDOW = 256;
+	private static final int ROUNDS = 3;
+
+	public static void main(String args[]) throws Exception {
+
+		System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+
+		for (int submitters = 1; submitters <= 64; submitters *= 4) {
+			double locked = 0;
+			double pipelined = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				locked = Math.max(locked, runLocked(newTree(), submitters));
+				pipelined = Math.max(pipelined, runPipeline(newTree(), submitters));
+			}
+			System.out.printf("submitters: %3d  synchronized: %6.2f Mops/s  pipeline: %6.2f Mops/s  speedup: %5.2fx%n",
+					submitters, locked / 1e6, pipelined / 1e6, pipelined / locked);
+		}
+	}
+
+	private static RedBlackTree<Integer> newTree() {
+		RedBlackTree<Integer> rbt = new RedBlackTree<Integer>();
+		Random random = new Random(1);
+		for (int i = 0; i < KEY_RANGE / 2; i++) {
+			rbt.insert(random.nextInt(KEY_RANGE));
+		}
+		return rbt;
+	}
+
+	private static double runLocked(final RedBlackTree<Integer> rbt, int submitters) throws InterruptedException {
+		final Thread[] threads = new Thread[submitters];
+		for (int t = 0; t < submitters; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < TOTAL_OPERATIONS / threads.length; i++) {
+						int key = random.nextInt(KEY_RANGE);
+						int operation = random.nextInt(10);
+						synchronized (rbt) {
+							if (operation < 8) {
+								rbt.search(key);
+							} else if (operation == 8) {
+								rbt.insert(key);
+							} else if (rbt.search(key) != null) {
+								rbt.delete(rbt.search(key));
+							}
+						}
+					}
+				}
+			});
+		}
+		return run(threads);
+	}
+
+	private static double runPipeline(RedBlackTree<Integer> rbt, int submitters) throws InterruptedException {
+		final RedBlackTreeCommandPipeline<Integer> pipeline = new RedBlackTreeCommandPipeline<Integer>(rbt, 4096,
+				1024);
+		final Thread[] threads = new Thread[submitters];
+		for (int t = 0; t < submitters; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ArrayDeque<CompletableFuture<?>> pending = new ArrayDeque<CompletableFuture<?>>();
+					for (int i = 0; i < TOTAL_OPERATIONS / threads.length; i++) {
+						int key = random.nextInt(KEY_RANGE);
+						int operation = random.nextInt(10);
+						if (operation < 8) {
+							pending.add(pipeline.search(key));
+						} else if (operation == 8) {
+							pending.add(pipeline.insert(key));
+						} else {
+							pending.add(pipeline.delete(key));
+						}
+						if (pending.size() == WINDOW) {
+							pending.poll().join();
+						}
+					}
+					for (CompletableFuture<?> future : pending) {
+						future.join();
+					}
+				}
+			});
+		}
+		double throughput = run(threads);
+		pipeline.close();
+		return throughput;
+	}
+
+	private static double run(Thread[] threads) throws InterruptedException {
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) (TOTAL_OPERATIONS / threads.length) * threads.length / elapsed * 1e9;
+	}
+}
@@ -0,0 +1,76 @@
+package org.altervista.scarrozzo.jredblacktree.examples;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTree;
+import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTreeNode;
+
+/**
+ * Compare single searches with searchAll for batches of growing size and show
+ * the batch size from which searchAll becomes faster
+ */
+public class RBTSearchAllBenchmark {
+
+	private static final int TREE_SIZE = 1 << 20;
+	private static final int ROUNDS = 5;
+
+	public static void main(String args[]) {
+
+		// create the RBT with the even keys, so half of the searches miss
+		RedBlackTree<Integer> rbt = new RedBlackTree<Integer>();
+		for (int i = 0; i < TREE_SIZE; i++) {
+			rbt.insert(i * 2);
+		}
+
+		Random random = new Random(42);
+		int crossover = -1;
+		long sink = 0;
+
+		for (int batchSize = 1; batchSize <= TREE_SIZE * 2; batchSize *= 4) {
+			Integer[] keys = new Integer[batchSize];
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			RedBlackTreeNode<Integer>[] results = new RedBlackTreeNode[batchSize];
+			int repeat = Math.max(1, (1 << 20) / batchSize);
+
+			long singleNanos = Long.MAX_VALUE;
+			long batchNanos = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				for (int i = 0; i < batchSize; i++) {
+					keys[i] = random.nextInt(TREE_SIZE * 2);
+				}
+				Arrays.sort(keys);
+
+				long start = System.nanoTime();
+				for (int r = 0; r < repeat; r++) {
+					for (int i = 0; i < batchSize; i++) {
+						results[i] = rbt.search(keys[i]);
+					}
+					sink += results[batchSize - 1] != null ? 1 : 0;
+				}
+				singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int r = 0; r < repeat; r++) {
+					rbt.searchAll(keys, results);
+					sink += results[batchSize - 1] != null ? 1 : 0;
+				}
+				batchNanos = Math.min(batchNanos, System.nanoTime() - start);
+			}
+
+			double single = (double) singleNanos / repeat / batchSize;
+			double batch = (double) batchNanos / repeat / batchSize;
+			System.out.printf("keys: %8d  search: %7.1f ns/key  searchAll: %7.1f ns/key  speedup: %5.2fx%n", batchSize,
+					single, batch, single / batch);
+			if (crossover < 0 && batch < single) {
+				crossover = batchSize;
+			}
+		}
+
+		if (crossover > 0) {
+			System.out.println("searchAll is faster from " + crossover + " keys (" + sink + " checks)");
+		} else {
+			System.out.println("searchAll is never faster (" + sink + " checks)");
+		}
+	}
+}
@@ -0,0 +1,661 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class represent a red black tree with byte[] keys ordered with unsigned
+ * lexicographic comparison, useful for long strings and serialized composite
+ * keys.
+ *
+ * The nodes are not objects: links, colors and key positions are kept in
+ * parallel arrays indexed by node, where the index 0 is the nil node. The key
+ * bytes are copied in a shared arena and every key is split in a prefix, which
+ * points to bytes already stored for a neighbour key, and a suffix with its
+ * own bytes. Only the keys stored in full, called anchors, lend their bytes:
+ * a key sharing with a neighbour that is not an anchor points into the anchor
+ * of the neighbour. When that would share much less than the common prefix,
+ * the key is stored in full and becomes a new anchor. During a descent the
+ * tree remembers how many bytes the searched key shares with the lower and
+ * upper bounds of the current subtree; every key of the subtree shares at
+ * least the minimum of the two, so the comparison starts after those bytes.
+ *
+ * The bytes of a deleted key are counted as dead when no live key shares them;
+ * a deleted anchor still shared keeps its node until its last sharer is
+ * deleted. When the dead bytes are more than the live ones the arena is
+ * compacted: the live keys are copied in order in a new arena, sharing their
+ * prefixes with the previous keys in the same way.
+ */
+public class ByteKeyRedBlackTree {
+
+	private static final int NIL = 0;
+	private static final int MIN_COMPACTION_BYTES = 4096;
+
+	private int[] parent;
+	private int[] leftChild;
+	private int[] rightChild;
+	private boolean[] red;
+
+	// key bytes [0, prefixLength) are at prefixOffset, the remaining bytes
+	// [prefixLength, keyLength) are at suffixOffset
+	private int[] prefixOffset;
+	private int[] prefixLength;
+	private int[] suffixOffset;
+	private int[] keyLength;
+	// the anchor holding the prefix bytes, and for an anchor the number of
+	// live keys using its bytes, itself included while it is in the tree
+	private int[] anchor;
+	private int[] references;
+
+	private byte[] arena;
+	private int arenaSize;
+	private int deadBytes;
+
+	private int root;
+	private int size;
+	private int usedNodes;
+	private int freeNodes;
+
+	// length of the common prefix found by the last call of compareFrom
+	private int matched;
+
+	/**
+	 * Create a new empty red black tree
+	 */
+	public ByteKeyRedBlackTree() {
+		this(16);
+	}
+
+	/**
+	 * Create a new empty red black tree
+	 *
+	 * @param initialCapacity
+	 *            The number of keys the tree can hold before growing
+	 */
+	public ByteKeyRedBlackTree(int initialCapacity) {
+		int capacity = Math.max(2, initialCapacity + 1);
+		this.parent = new int[capacity];
+		this.leftChild = new int[capacity];
+		this.rightChild = new int[capacity];
+		this.red = new boolean[capacity];
+		this.prefixOffset = new int[capacity];
+		this.prefixLength = new int[capacity];
+		this.suffixOffset = new int[capacity];
+		this.keyLength = new int[capacity];
+		this.anchor = new int[capacity];
+		this.references = new int[capacity];
+		this.arena = new byte[Math.max(64, capacity * 8)];
+		this.root = NIL;
+		this.usedNodes = 1;
+		this.freeNodes = NIL;
+	}
+
+	/**
+	 * Get the number of keys in the tree
+	 *
+	 * @return The number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of bytes used by the arena of the keys
+	 *
+	 * @return The used bytes of the arena
+	 */
+	public int getArenaSize() {
+		return arenaSize;
+	}
+
+	/**
+	 * Search a key in the tree
+	 *
+	 * @param key
+	 *            The key to find
+	 * @return true if the key is in the tree
+	 */
+	public boolean contains(byte[] key) {
+		return search(key) != NIL;
+	}
+
+	/**
+	 * Insert a new key in the red black tree. The bytes of the key are copied,
+	 * so the array can be reused by the caller.
+	 *
+	 * @param key
+	 *            The key to insert
+	 */
+	public void insert(byte[] key) {
+		int x = root;
+		int y = NIL;
+		int lowLcp = 0;
+		int highLcp = 0;
+		int lowNode = NIL;
+		int highNode = NIL;
+		while (x != NIL) {
+			y = x;
+			if (compareFrom(key, x, Math.min(lowLcp, highLcp)) >= 0) {
+				lowLcp = matched;
+				lowNode = x;
+				x = rightChild[x];
+			} else {
+				highLcp = matched;
+				highNode = x;
+				x = leftChild[x];
+			}
+		}
+
+		int node = allocateNode();
+		// the neighbours of the new key are on the path, share the bytes of
+		// the one that can lend more of them
+		int lowShared = getShareableLength(lowNode, lowLcp);
+		int highShared = getShareableLength(highNode, highLcp);
+		if (lowShared >= highShared) {
+			storeKey(node, key, key.length, lowNode, lowShared, Math.max(lowLcp, highLcp));
+		} else {
+			storeKey(node, key, key.length, highNode, highShared, Math.max(lowLcp, highLcp));
+		}
+
+		parent[node] = y;
+		leftChild[node] = NIL;
+		rightChild[node] = NIL;
+		red[node] = true;
+		if (y == NIL) {
+			root = node;
+		} else if (y == lowNode) {
+			rightChild[y] = node;
+		} else {
+			leftChild[y] = node;
+		}
+		size++;
+		insertFixup(node);
+	}
+
+	/**
+	 * Delete a key from the tree
+	 *
+	 * @param key
+	 *            The key to delete
+	 * @return true if the key was in the tree
+	 */
+	public boolean delete(byte[] key) {
+		int node = search(key);
+		if (node == NIL) {
+			return false;
+		}
+		delete(node);
+		return true;
+	}
+
+	/**
+	 * Get the minimum key of the tree
+	 *
+	 * @return A copy of the minimum key or null if the tree is empty
+	 */
+	public byte[] getMinKey() {
+		return root == NIL ? null : getKey(getMinNodeStartingFrom(root));
+	}
+
+	/**
+	 * Get the maximum key of the tree
+	 *
+	 * @return A copy of the maximum key or null if the tree is empty
+	 */
+	public byte[] getMaxKey() {
+		if (root == NIL) {
+			return null;
+		}
+		int x = root;
+		while (rightChild[x] != NIL) {
+			x = rightChild[x];
+		}
+		return getKey(x);
+	}
+
+	/**
+	 * From red black tree to array list adding with in order principle
+	 *
+	 * @return The array list with a copy of every key
+	 */
+	public ArrayList<byte[]> toInOrderList() {
+		ArrayList<byte[]> list = new ArrayList<byte[]>(size);
+		if (root == NIL) {
+			return list;
+		}
+		for (int x = getMinNodeStartingFrom(root); x != NIL; x = treeSuccessor(x)) {
+			list.add(getKey(x));
+		}
+		return list;
+	}
+
+	private int search(byte[] key) {
+		int x = root;
+		int lowLcp = 0;
+		int highLcp = 0;
+		while (x != NIL) {
+			int c = compareFrom(key, x, Math.min(lowLcp, highLcp));
+			if (c == 0) {
+				return x;
+			} else if (c < 0) {
+				highLcp = matched;
+				x = leftChild[x];
+			} else {
+				lowLcp = matched;
+				x = rightChild[x];
+			}
+		}
+		return NIL;
+	}
+
+	/**
+	 * Compare a key with the key of a node with unsigned lexicographic order,
+	 * skipping the bytes already known to be equal. The length of the common
+	 * prefix is left in the matched field.
+	 *
+	 * @param key
+	 *            The key to compare
+	 * @param node
+	 *            The node
+	 * @param from
+	 *            The number of leading bytes known to be equal
+	 * @return A negative number, zero or a positive number if the key is
+	 *         lower, equal or greater than the key of the node
+	 */
+	private int compareFrom(byte[] key, int node, int from) {
+		int length = keyLength[node];
+		int shared = prefixLength[node];
+		int common = Math.min(key.length, length);
+		int i = from;
+		if (i < shared) {
+			int end = Math.min(shared, common);
+			int base = prefixOffset[node];
+			int m = Arrays.mismatch(key, i, end, arena, base + i, base + end);
+			if (m >= 0) {
+				matched = i + m;
+				return Byte.compareUnsigned(key[i + m], arena[base + i + m]);
+			}
+			i = end;
+		}
+		if (i < common) {
+			int base = suffixOffset[node] - shared;
+			int m = Arrays.mismatch(key, i, common, arena, base + i, base + common);
+			if (m >= 0) {
+				matched = i + m;
+				return Byte.compareUnsigned(key[i + m], arena[base + i + m]);
+			}
+		}
+		matched = common;
+		return key.length - length;
+	}
+
+	/**
+	 * Get how many of the bytes in common with a neighbour can be shared: all
+	 * of them if the neighbour is an anchor, otherwise only the ones in its
+	 * prefix
+	 *
+	 * @param neighbour
+	 *            The neighbour node or nil
+	 * @param lcp
+	 *            The length of the common prefix between the key and the
+	 *            neighbour key
+	 * @return The number of bytes that can be shared
+	 */
+	private int getShareableLength(int neighbour, int lcp) {
+		if (neighbour == NIL || prefixLength[neighbour] == 0) {
+			return lcp;
+		}
+		return Math.min(lcp, prefixLength[neighbour]);
+	}
+
+	/**
+	 * Store the bytes of a new key, sharing its first bytes with a neighbour
+	 *
+	 * @param node
+	 *            The new node
+	 * @param key
+	 *            The key of the new node
+	 * @param length
+	 *            The length of the key, the array can be longer
+	 * @param neighbour
+	 *            The neighbour node or nil
+	 * @param shared
+	 *            The number of bytes that can be shared with the neighbour
+	 * @param lcp
+	 *            The length of the longest common prefix between the key and
+	 *            its neighbours
+	 */
+	private void storeKey(int node, byte[] key, int length, int neighbour, int shared, int lcp) {
+		// sharing a small part of the common prefix would also limit the keys
+		// sharing with this one later, store it in full as a new anchor
+		if (shared < lcp / 2) {
+			shared = 0;
+		}
+		int offset = 0;
+		int source = NIL;
+		if (shared > 0) {
+			if (prefixLength[neighbour] == 0) {
+				offset = suffixOffset[neighbour];
+				source = neighbour;
+			} else {
+				offset = prefixOffset[neighbour];
+				source = anchor[neighbour];
+			}
+			references[source]++;
+		}
+
+		int suffix = length - shared;
+		if (arenaSize + suffix > arena.length || arenaSize + suffix < 0) {
+			long needed = (long) arenaSize + suffix;
+			if (needed > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("The key arena is full");
+			}
+			arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, arena.length * 2L)));
+		}
+		System.arraycopy(key, shared, arena, arenaSize, suffix);
+
+		prefixOffset[node] = offset;
+		prefixLength[node] = shared;
+		suffixOffset[node] = arenaSize;
+		keyLength[node] = length;
+		anchor[node] = source;
+		references[node] = 1;
+		arenaSize += suffix;
+	}
+
+	/**
+	 * Drop a reference to the bytes of a node. When the last one is dropped
+	 * the own bytes of the node are dead and the node can be reused.
+	 *
+	 * @param node
+	 *            The deleted node or the anchor of a deleted node
+	 */
+	private void release(int node) {
+		if (--references[node] > 0) {
+			return;
+		}
+		deadBytes += keyLength[node] - prefixLength[node];
+		leftChild[node] = freeNodes;
+		freeNodes = node;
+		if (anchor[node] != NIL) {
+			release(anchor[node]);
+		}
+	}
+
+	/**
+	 * Copy the live keys in order in a new arena, dropping the bytes of the
+	 * deleted keys
+	 */
+	private void compactArena() {
+		byte[] oldArena = arena;
+		arena = new byte[Math.max(64, (arenaSize - deadBytes) * 3 / 2)];
+		arenaSize = 0;
+		deadBytes = 0;
+		Arrays.fill(references, 0, usedNodes, 0);
+
+		byte[] key = new byte[64];
+		byte[] previousKey = new byte[64];
+		int previousLength = 0;
+		int previous = NIL;
+		for (int x = getMinNodeStartingFrom(root); x != NIL; x = treeSuccessor(x)) {
+			int length = keyLength[x];
+			if (key.length < length) {
+				key = new byte[Math.max(length, key.length * 2)];
+			}
+			System.arraycopy(oldArena, prefixOffset[x], key, 0, prefixLength[x]);
+			System.arraycopy(oldArena, suffixOffset[x], key, prefixLength[x], length - prefixLength[x]);
+
+			int lcp = 0;
+			if (previous != NIL) {
+				int m = Arrays.mismatch(key, 0, length, previousKey, 0, previousLength);
+				lcp = m < 0 ? length : m;
+			}
+			storeKey(x, key, length, previous, getShareableLength(previous, lcp), lcp);
+
+			byte[] swap = previousKey;
+			previousKey = key;
+			key = swap;
+			previousLength = length;
+			previous = x;
+		}
+
+		// the deleted anchors kept for their sharers are free now
+		freeNodes = NIL;
+		for (int x = usedNodes - 1; x > NIL; x--) {
+			if (references[x] == 0) {
+				leftChild[x] = freeNodes;
+				freeNodes = x;
+			}
+		}
+	}
+
+	private byte[] getKey(int node) {
+		byte[] key = new byte[keyLength[node]];
+		System.arraycopy(arena, prefixOffset[node], key, 0, prefixLength[node]);
+		System.arraycopy(arena, suffixOffset[node], key, prefixLength[node], keyLength[node] - prefixLength[node]);
+		return key;
+	}
+
+	private int allocateNode() {
+		if (freeNodes != NIL) {
+			int node = freeNodes;
+			freeNodes = leftChild[node];
+			return node;
+		}
+		if (usedNodes == parent.length) {
+			int capacity = parent.length * 2;
+			parent = Arrays.copyOf(parent, capacity);
+			leftChild = Arrays.copyOf(leftChild, capacity);
+			rightChild = Arrays.copyOf(rightChild, capacity);
+			red = Arrays.copyOf(red, capacity);
+			prefixOffset = Arrays.copyOf(prefixOffset, capacity);
+			prefixLength = Arrays.copyOf(prefixLength, capacity);
+			suffixOffset = Arrays.copyOf(suffixOffset, capacity);
+			keyLength = Arrays.copyOf(keyLength, capacity);
+			anchor = Arrays.copyOf(anchor, capacity);
+			references = Arrays.copyOf(references, capacity);
+		}
+		return usedNodes++;
+	}
+
+	private int getMinNodeStartingFrom(int x) {
+		while (leftChild[x] != NIL) {
+			x = leftChild[x];
+		}
+		return x;
+	}
+
+	private int treeSuccessor(int node) {
+		if (rightChild[node] != NIL) {
+			return getMinNodeStartingFrom(rightChild[node]);
+		}
+		int successor = parent[node];
+		while (successor != NIL && node == rightChild[successor]) {
+			node = successor;
+			successor = parent[successor];
+		}
+		return successor;
+	}
+
+	private void delete(int node) {
+		int y = node;
+		int x;
+		boolean yOriginalRed = red[y];
+		if (leftChild[node] == NIL) {
+			x = rightChild[node];
+			transplant(node, rightChild[node]);
+		} else if (rightChild[node] == NIL) {
+			x = leftChild[node];
+			transplant(node, leftChild[node]);
+		} else {
+			y = getMinNodeStartingFrom(rightChild[node]);
+			yOriginalRed = red[y];
+			x = rightChild[y];
+			if (parent[y] == node) {
+				parent[x] = y;
+			} else {
+				transplant(y, rightChild[y]);
+				rightChild[y] = rightChild[node];
+				parent[rightChild[y]] = y;
+			}
+			transplant(node, y);
+			leftChild[y] = leftChild[node];
+			parent[leftChild[y]] = y;
+			red[y] = red[node];
+		}
+		if (!yOriginalRed) {
+			deleteFixup(x);
+		}
+
+		size--;
+		release(node);
+		if (size == 0) {
+			arenaSize = 0;
+			deadBytes = 0;
+		} else if (deadBytes > MIN_COMPACTION_BYTES && deadBytes > arenaSize - deadBytes) {
+			compactArena();
+		}
+	}
+
+	private void transplant(int oldNode, int newNode) {
+		if (parent[oldNode] == NIL) {
+			root = newNode;
+		} else if (oldNode == leftChild[parent[oldNode]]) {
+			leftChild[parent[oldNode]] = newNode;
+		} else {
+			rightChild[parent[oldNode]] = newNode;
+		}
+		parent[newNode] = parent[oldNode];
+	}
+
+	private void leftRotate(int node) {
+		int child = rightChild[node];
+		rightChild[node] = leftChild[child];
+		if (leftChild[child] != NIL) {
+			parent[leftChild[child]] = node;
+		}
+		parent[child] = parent[node];
+		if (parent[node] == NIL) {
+			root = child;
+		} else if (node == leftChild[parent[node]]) {
+			leftChild[parent[node]] = child;
+		} else {
+			rightChild[parent[node]] = child;
+		}
+		leftChild[child] = node;
+		parent[node] = child;
+	}
+
+	private void rightRotate(int node) {
+		int child = leftChild[node];
+		leftChild[node] = rightChild[child];
+		if (rightChild[child] != NIL) {
+			parent[rightChild[child]] = node;
+		}
+		parent[child] = parent[node];
+		if (parent[node] == NIL) {
+			root = child;
+		} else if (node == leftChild[parent[node]]) {
+			leftChild[parent[node]] = child;
+		} else {
+			rightChild[parent[node]] = child;
+		}
+		rightChild[child] = node;
+		parent[node] = child;
+	}
+
+	private void insertFixup(int node) {
+		while (red[parent[node]]) {
+			int grandParent = parent[parent[node]];
+			if (parent[node] == leftChild[grandParent]) {
+				int uncle = rightChild[grandParent];
+				if (red[uncle]) {
+					red[parent[node]] = false;
+					red[uncle] = false;
+					red[grandParent] = true;
+					node = grandParent;
+				} else {
+					if (node == rightChild[parent[node]]) {
+						node = parent[node];
+						leftRotate(node);
+					}
+					red[parent[node]] = false;
+					red[parent[parent[node]]] = true;
+					rightRotate(parent[parent[node]]);
+				}
+			} else {
+				int uncle = leftChild[grandParent];
+				if (red[uncle]) {
+					red[parent[node]] = false;
+					red[uncle] = false;
+					red[grandParent] = true;
+					node = grandParent;
+				} else {
+					if (node == leftChild[parent[node]]) {
+						node = parent[node];
+						rightRotate(node);
+					}
+					red[parent[node]] = false;
+					red[parent[parent[node]]] = true;
+					leftRotate(parent[parent[node]]);
+				}
+			}
+		}
+		red[root] = false;
+	}
+
+	private void deleteFixup(int node) {
+		while (node != root && !red[node]) {
+			if (node == leftChild[parent[node]]) {
+				int x = rightChild[parent[node]];
+				if (red[x]) {
+					red[x] = false;
+					red[parent[node]] = true;
+					leftRotate(parent[node]);
+					x = rightChild[parent[node]];
+				}
+				if (!red[leftChild[x]] && !red[rightChild[x]]) {
+					red[x] = true;
+					node = parent[node];
+				} else {
+					if (!red[rightChild[x]]) {
+						red[leftChild[x]] = false;
+						red[x] = true;
+						rightRotate(x);
+						x = rightChild[parent[node]];
+					}
+					red[x] = red[parent[node]];
+					red[parent[node]] = false;
+					red[rightChild[x]] = false;
+					leftRotate(parent[node]);
+					node = root;
+				}
+			} else {
+				int x = leftChild[parent[node]];
+				if (red[x]) {
+					red[x] = false;
+					red[parent[node]] = true;
+					rightRotate(parent[node]);
+					x = leftChild[parent[node]];
+				}
+				if (!red[rightChild[x]] && !red[leftChild[x]]) {
+					red[x] = true;
+					node = parent[node];
+				} else {
+					if (!red[leftChild[x]]) {
+						red[rightChild[x]] = false;
+						red[x] = true;
+						leftRotate(x);
+						x = leftChild[parent[node]];
+					}
+					red[x] = red[parent[node]];
+					red[parent[node]] = false;
+					red[leftChild[x]] = false;
+					rightRotate(parent[node]);
+					node = root;
+				}
+			}
+		}
+		red[node] = false;
+	}
+}
@@ -1,6 +1,8 @@
 package org.altervista.scarrozzo.jredblacktree.rbtclasses;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTreeNode.RBT_COLORS;
 
@@ -15,8 +17,25 @@ import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTreeNode.RBT_CO
  */
 public class RedBlackTree<T extends Comparable<T>> {
 
+	public static enum TRAVERSAL_ORDERS {
+		PRE_ORDER, IN_ORDER, POST_ORDER
+	};
+
+	private static enum BATCH_MODES {
+		SEARCH, FLOOR, CEILING
+	};
+
 	private RedBlackTreeNode<T> nil;
 	private RedBlackTreeNode<T> root;
+	private RedBlackTreeSearchCache<T> searchCache;
+
+	/**
+	 * Create a new empty red black tree
+	 */
+	public RedBlackTree() {
+		this.nil = new RedBlackTreeNode<T>();
+		this.root = nil;
+	}
 
 	/**
 	 * Create a new red black tree with root node key equals to the key
@@ -107,14 +126,42 @@ public class RedBlackTree<T extends Comparable<T>> {
 	}
 
 	/**
-	 * Search the node with the key equals to the key parameter
+	 * Search the node with the key equals to the key parameter. Without a
+	 * search cache the tree is only read, so many threads can search at the
+	 * same time while no thread modifies it. With the cache enabled every
+	 * search updates the cache, and concurrent searches need the same
+	 * exclusive access as insert and delete.
 	 * 
 	 * @param key
 	 *            The key used to find the node
 	 * @return The node found or null
 	 */
 	public RedBlackTreeNode<T> search(T key) {
-		RedBlackTreeNode<T> x = root;
+		if (searchCache != null) {
+			RedBlackTreeNode<T> cached = searchCache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		RedBlackTreeNode<T> x = searchStartingFrom(root, key);
+		if (x != null && searchCache != null) {
+			searchCache.put(x);
+		}
+		return x;
+	}
+
+	/**
+	 * Search the node with the key equals to the key parameter in the subtree
+	 * of a given node
+	 * 
+	 * @param startingNode
+	 *            The root of the subtree
+	 * @param key
+	 *            The key used to find the node
+	 * @return The node found or null
+	 */
+	private RedBlackTreeNode<T> searchStartingFrom(RedBlackTreeNode<T> startingNode, T key) {
+		RedBlackTreeNode<T> x = startingNode;
 		while (!x.equals(nil)) {
 			if (x.getKey().equals(key)) {
 				return x;
@@ -127,6 +174,301 @@ public class RedBlackTree<T extends Comparable<T>> {
 		return null;
 	}
 
+	/**
+	 * Search many keys with a single descent: the sorted keys are split at
+	 * every node between the left and the right subtree, so the common part
+	 * of their paths is walked once and the subtrees without keys are never
+	 * visited. Like search, a node is found when its key equals the searched
+	 * key, also when compareTo is not consistent with equals. The search cache
+	 * is not used.
+	 * 
+	 * @param sortedKeys
+	 *            The keys to find, in ascending order
+	 * @param results
+	 *            Filled with the node found for the key at the same position
+	 *            or null
+	 */
+	public void searchAll(T[] sortedKeys, RedBlackTreeNode<T>[] results) {
+		checkBatch(sortedKeys, results);
+		searchAll(root, sortedKeys, 0, sortedKeys.length, results, BATCH_MODES.SEARCH, null, null);
+	}
+
+	/**
+	 * Find for every key the node with the greatest key lower or equal to it
+	 * according to compareTo, with a single descent like searchAll
+	 * 
+	 * @param sortedKeys
+	 *            The keys, in ascending order
+	 * @param results
+	 *            Filled with the floor node of the key at the same position or
+	 *            null
+	 */
+	public void floorAll(T[] sortedKeys, RedBlackTreeNode<T>[] results) {
+		checkBatch(sortedKeys, results);
+		searchAll(root, sortedKeys, 0, sortedKeys.length, results, BATCH_MODES.FLOOR, null, null);
+	}
+
+	/**
+	 * Find for every key the node with the lowest key greater or equal to it
+	 * according to compareTo, with a single descent like searchAll
+	 * 
+	 * @param sortedKeys
+	 *            The keys, in ascending order
+	 * @param results
+	 *            Filled with the ceiling node of the key at the same position
+	 *            or null
+	 */
+	public void ceilingAll(T[] sortedKeys, RedBlackTreeNode<T>[] results) {
+		checkBatch(sortedKeys, results);
+		searchAll(root, sortedKeys, 0, sortedKeys.length, results, BATCH_MODES.CEILING, null, null);
+	}
+
+	/**
+	 * Check if all the keys are in the tree with a single descent like
+	 * searchAll, stopping at the first missing key. A key is in the tree when
+	 * search would find it.
+	 * 
+	 * @param sortedKeys
+	 *            The keys, in ascending order
+	 * @return true if every key is in the tree
+	 */
+	public boolean containsAll(T[] sortedKeys) {
+		checkBatch(sortedKeys);
+		return sortedKeys.length == 0 || containsAll(root, sortedKeys, 0, sortedKeys.length);
+	}
+
+	private void checkBatch(T[] sortedKeys, RedBlackTreeNode<T>[] results) {
+		if (results == null) {
+			throw new NullPointerException("results");
+		}
+		if (results.length < sortedKeys.length) {
+			throw new IllegalArgumentException("results is shorter than sortedKeys");
+		}
+		checkBatch(sortedKeys);
+	}
+
+	private void checkBatch(T[] sortedKeys) {
+		for (int i = 1; i < sortedKeys.length; i++) {
+			if (sortedKeys[i - 1].compareTo(sortedKeys[i]) > 0) {
+				throw new IllegalArgumentException("sortedKeys is not in ascending order");
+			}
+		}
+	}
+
+	/**
+	 * The merged descent of searchAll, floorAll and ceilingAll
+	 * 
+	 * @param node
+	 *            The root of the current subtree
+	 * @param keys
+	 *            The sorted keys
+	 * @param from
+	 *            The first key that falls in the subtree
+	 * @param to
+	 *            The position after the last key that falls in the subtree
+	 * @param results
+	 *            The results array
+	 * @param mode
+	 *            What to look for
+	 * @param floor
+	 *            The nearest ancestor lower than the subtree or null
+	 * @param ceiling
+	 *            The nearest ancestor greater than the subtree or null
+	 */
+	private void searchAll(RedBlackTreeNode<T> node, T[] keys, int from, int to, RedBlackTreeNode<T>[] results,
+			BATCH_MODES mode, RedBlackTreeNode<T> floor, RedBlackTreeNode<T> ceiling) {
+		// a single key has nothing to share, finish its descent in a loop
+		if (to - from == 1) {
+			T key = keys[from];
+			while (node != nil) {
+				int c = node.getKey().compareTo(key);
+				if (c == 0 && (mode != BATCH_MODES.SEARCH || node.getKey().equals(key))) {
+					results[from] = node;
+					return;
+				} else if (c > 0) {
+					ceiling = node;
+					node = node.getLeftChild();
+				} else {
+					floor = node;
+					node = node.getRightChild();
+				}
+			}
+		}
+
+		if (node == nil) {
+			RedBlackTreeNode<T> result = null;
+			if (mode == BATCH_MODES.FLOOR) {
+				result = floor;
+			} else if (mode == BATCH_MODES.CEILING) {
+				result = ceiling;
+			}
+			Arrays.fill(results, from, to, result);
+			return;
+		}
+
+		int lower = lowerBound(keys, from, to, node.getKey());
+		int upper = upperBound(keys, lower, to, node.getKey());
+		if (from < lower) {
+			searchAll(node.getLeftChild(), keys, from, lower, results, mode, floor, node);
+		}
+		if (mode != BATCH_MODES.SEARCH) {
+			Arrays.fill(results, lower, upper, node);
+		} else {
+			for (int i = lower; i < upper; i++) {
+				// a key equal for compareTo but not for equals continues to
+				// the right subtree, as in search
+				results[i] = node.getKey().equals(keys[i]) ? node
+						: searchStartingFrom(node.getRightChild(), keys[i]);
+			}
+		}
+		if (upper < to) {
+			searchAll(node.getRightChild(), keys, upper, to, results, mode, node, ceiling);
+		}
+	}
+
+	private boolean containsAll(RedBlackTreeNode<T> node, T[] keys, int from, int to) {
+		if (node == nil) {
+			return false;
+		}
+		int lower = lowerBound(keys, from, to, node.getKey());
+		int upper = upperBound(keys, lower, to, node.getKey());
+		for (int i = lower; i < upper; i++) {
+			if (!node.getKey().equals(keys[i]) && searchStartingFrom(node.getRightChild(), keys[i]) == null) {
+				return false;
+			}
+		}
+		return (from == lower || containsAll(node.getLeftChild(), keys, from, lower))
+				&& (upper == to || containsAll(node.getRightChild(), keys, upper, to));
+	}
+
+	/**
+	 * Find the first position of the sorted keys with a key greater or equal
+	 * to the key parameter
+	 */
+	private int lowerBound(T[] keys, int from, int to, T key) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (keys[middle].compareTo(key) < 0) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Find the first position of the sorted keys with a key greater than the
+	 * key parameter
+	 */
+	private int upperBound(T[] keys, int from, int to, T key) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (keys[middle].compareTo(key) <= 0) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Put a bounded cache in front of the search method, so the nodes of the
+	 * most searched keys are found without walking the tree. A cache already
+	 * enabled is replaced by an empty one.
+	 * 
+	 * Hits, misses, evictions and the reference bits of the cache are updated
+	 * by every search, so with the cache enabled search is no longer a read
+	 * only operation: the threads that search under a shared read lock
+	 * corrupt the cache. Enable it only when every search is done by a single
+	 * thread or under an exclusive lock.
+	 * 
+	 * @param capacity
+	 *            The maximum number of cached keys
+	 */
+	public void enableSearchCache(int capacity) {
+		searchCache = new RedBlackTreeSearchCache<T>(capacity);
+	}
+
+	/**
+	 * Remove the cache in front of the search method
+	 */
+	public void disableSearchCache() {
+		searchCache = null;
+	}
+
+	/**
+	 * Get the cache in front of the search method, useful to read its
+	 * statistics
+	 * 
+	 * @return The cache or null if it is not enabled
+	 */
+	public RedBlackTreeSearchCache<T> getSearchCache() {
+		return searchCache;
+	}
+
+	/**
+	 * Search the node with the key equals to the key parameter starting from
+	 * a node found by a previous operation. When the keys are searched in
+	 * ascending order the descent restarts from the lowest ancestor of the
+	 * finger that covers the key instead of the root.
+	 * 
+	 * @param finger
+	 *            A node of the tree with a key lower or equal to the key
+	 *            parameter, or null to start from the root
+	 * @param key
+	 *            The key used to find the node
+	 * @return The node found or null
+	 */
+	RedBlackTreeNode<T> searchFrom(RedBlackTreeNode<T> finger, T key) {
+		return searchStartingFrom(getDescentStart(finger, key), key);
+	}
+
+	/**
+	 * Insert a new node in the red black tree starting from a node found by a
+	 * previous operation
+	 * 
+	 * @param finger
+	 *            A node of the tree with a key lower or equal to the key
+	 *            parameter, or null to start from the root
+	 * @param key
+	 *            The key value of the new node
+	 * @return The inserted node
+	 */
+	RedBlackTreeNode<T> insertFrom(RedBlackTreeNode<T> finger, T key) {
+		RedBlackTreeNode<T> node = new RedBlackTreeNode<T>(key);
+		insert(node, getDescentStart(finger, key));
+		return node;
+	}
+
+	/**
+	 * Find the node from which a descent for the key can start. Climbing from
+	 * the finger, the first node that is the left child of a parent with a
+	 * greater key is the root of a subtree containing every position between
+	 * the finger and the key.
+	 * 
+	 * @param finger
+	 *            A node of the tree or null
+	 * @param key
+	 *            The key to reach
+	 * @return The node from which to start the descent
+	 */
+	private RedBlackTreeNode<T> getDescentStart(RedBlackTreeNode<T> finger, T key) {
+		if (finger == null || finger == nil || finger.getKey().compareTo(key) > 0) {
+			return root;
+		}
+		RedBlackTreeNode<T> x = finger;
+		while (x != root) {
+			RedBlackTreeNode<T> parent = x.getParent();
+			if (x == parent.getLeftChild() && parent.getKey().compareTo(key) > 0) {
+				return x;
+			}
+			x = parent;
+		}
+		return root;
+	}
+
 	/**
 	 * Get the tree minimum starting from a given node
 	 * 
@@ -204,7 +546,20 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 *            The new node
 	 */
 	private void insert(RedBlackTreeNode<T> node) {
-		RedBlackTreeNode<T> x = root;
+		insert(node, root);
+	}
+
+	/**
+	 * Insert a new node to the tree descending from a given node
+	 * 
+	 * @param node
+	 *            The new node
+	 * @param start
+	 *            The node from which start the descent, it must be the root or
+	 *            the root of a subtree that covers the key of the new node
+	 */
+	private void insert(RedBlackTreeNode<T> node, RedBlackTreeNode<T> start) {
+		RedBlackTreeNode<T> x = start;
 		RedBlackTreeNode<T> y = nil;
 		while (!x.equals(nil)) {
 			y = x;
@@ -214,7 +569,9 @@ public class RedBlackTree<T extends Comparable<T>> {
 				x = x.getLeftChild();
 			}
 		}
-		if (y.getKey().compareTo(node.getKey()) > 0) {
+		if (y == nil) {
+			root = node;
+		} else if (y.getKey().compareTo(node.getKey()) > 0) {
 			y.setLeftChild(node);
 		} else {
 			y.setRightChild(node);
@@ -233,6 +590,11 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 *            The node to delete
 	 */
 	public void delete(RedBlackTreeNode<T> node) {
+		// only the deleted node leaves the tree, the successor that may take
+		// its place is moved as a whole so its cache entry stays valid
+		if (searchCache != null) {
+			searchCache.remove(node);
+		}
 		RedBlackTreeNode<T> y = node;
 		RedBlackTreeNode<T> x = nil;
 		RBT_COLORS y_original_color = y.getColor();
@@ -267,127 +629,118 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 * Print all the nodes starting from the root with in order principle
 	 */
 	public void printInOrderAllNodes() {
-		if (root != nil) {
-			printInOrderAllNodes(root, 0, "root");
-		} else {
-			System.out.println("The RBT is empty");
-		}
-	}
-
-	/**
-	 * Print elements with in-order criterium
-	 * 
-	 * @param node
-	 *            the node from which to start to print
-	 * @param level
-	 *            the current level of node we are printing
-	 * @param typeChild
-	 *            show if the node is the left or the right child of the parent
-	 *            node
-	 */
-	private void printInOrderAllNodes(RedBlackTreeNode<T> node, int level, String typeChild) {
-		if (node != nil) {
-			if (node.getLeftChild() != nil) {
-				printInOrderAllNodes(node.getLeftChild(), level + 1, "left child");
-			}
-
-			if (node.getKey() != null && node.getColor() != null) {
-				String output = "Node at level " + level + ". Key: " + node.getKey().toString() + ". Color: "
-						+ node.getColor().toString() + ". Type child: " + typeChild + ". Parent: "
-						+ node.getParent().getKey();
-				System.out.println(output);
-			}
-
-			if (node.getRightChild() != nil) {
-				printInOrderAllNodes(node.getRightChild(), level + 1, "right child");
-			}
-		}
+		printAllNodes(TRAVERSAL_ORDERS.IN_ORDER);
 	}
 
 	/**
 	 * Print all the nodes starting from root with the pre-order principle
 	 */
 	public void printPreOrderAllNodes() {
-		if (root != nil) {
-			printPreOrderAllNodes(root, 0, "root");
-		} else {
-			System.out.println("The RBT is empty");
-		}
+		printAllNodes(TRAVERSAL_ORDERS.PRE_ORDER);
 	}
 
 	/**
-	 * Print elements with pre-order criterium
-	 * 
-	 * @param node
-	 *            the node from which to start to print
-	 * @param level
-	 *            the current level of node we are printing
-	 * @param typeChild
-	 *            show if the node is the left or the right child of the parent
-	 *            node
-	 */
-	private void printPreOrderAllNodes(RedBlackTreeNode<T> node, int level, String typeChild) {
-		if (node != nil) {
-
-			if (node.getKey() != null && node.getColor() != null) {
-				String output = "Node at level " + level + ". Key: " + node.getKey().toString() + ". Color: "
-						+ node.getColor().toString() + ". Type child: " + typeChild + ". Parent: "
-						+ node.getParent().getKey();
-				System.out.println(output);
-			}
-
-			if (node.getLeftChild() != nil) {
-				printPreOrderAllNodes(node.getLeftChild(), level + 1, "left child");
-			}
-
-			if (node.getRightChild() != nil) {
-				printPreOrderAllNodes(node.getRightChild(), level + 1, "right child");
-			}
-		}
+	 * print all the nodes starting from root with post-order principle
+	 */
+	public void printPostOrderAllNodes() {
+		printAllNodes(TRAVERSAL_ORDERS.POST_ORDER);
 	}
 
 	/**
-	 * print all the nodes starting from root with post-order principle
+	 * Print all the nodes on the standard output with the given order
+	 * 
+	 * @param order
+	 *            The traversal order
 	 */
-	public void printPostOrderAllNodes() {
+	private void printAllNodes(TRAVERSAL_ORDERS order) {
 		if (root != nil) {
-			printPostOrderAllNodes(root, 0, "root");
+			try {
+				new RedBlackTreeExporter<T>(System.out).export(this, order);
+			} catch (IOException e) {
+				// System.out never throws, errors are reported by checkError()
+			}
 		} else {
 			System.out.println("The RBT is empty");
 		}
 	}
 
 	/**
-	 * Print elements with post-order criterium
+	 * Visit all the nodes starting from the root with the given order. The
+	 * traversal is iterative, so it does not depend on the size of the call
+	 * stack. The tree must not be modified by the visitor.
 	 * 
-	 * @param node
-	 *            the node from which to start to print
-	 * @param level
-	 *            the current level of node we are printing
-	 * @param typeChild
-	 *            show if the node is the left or the right child of the parent
-	 *            node
-	 */
-	private void printPostOrderAllNodes(RedBlackTreeNode<T> node, int level, String typeChild) {
-		if (node != nil) {
-
-			if (node.getLeftChild() != nil) {
-				printPostOrderAllNodes(node.getLeftChild(), level + 1, "left child");
-			}
+	 * @param order
+	 *            The traversal order
+	 * @param visitor
+	 *            The visitor called for every node
+	 */
+	public void visitAllNodes(TRAVERSAL_ORDERS order, RedBlackTreeVisitor<T> visitor) {
+		if (root == nil) {
+			return;
+		}
 
-			if (node.getRightChild() != nil) {
-				printPostOrderAllNodes(node.getRightChild(), level + 1, "right child");
+		// the stack holds the path from the root to the current node, so the
+		// position in the stack is the level of the node
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		RedBlackTreeNode<T>[] stack = new RedBlackTreeNode[64];
+		int[] indexes = new int[64];
+		byte[] states = new byte[64];
+		int level = 0;
+		int nextIndex = 1;
+		stack[0] = root;
+
+		while (level >= 0) {
+			RedBlackTreeNode<T> node = stack[level];
+			RedBlackTreeNode<T> child = nil;
+
+			if (states[level] == 0) {
+				states[level] = 1;
+				if (order == TRAVERSAL_ORDERS.PRE_ORDER) {
+					visitNode(visitor, stack, indexes, level);
+				}
+				child = node.getLeftChild();
+			}
+			if (child == nil && states[level] == 1) {
+				states[level] = 2;
+				if (order == TRAVERSAL_ORDERS.IN_ORDER) {
+					visitNode(visitor, stack, indexes, level);
+				}
+				child = node.getRightChild();
 			}
 
-			if (node.getKey() != null && node.getColor() != null) {
-				String output = "Node at level " + level + ". Key: " + node.getKey().toString() + ". Color: "
-						+ node.getColor().toString() + ". Type child: " + typeChild + ". Parent: "
-						+ node.getParent().getKey();
-				System.out.println(output);
+			if (child != nil) {
+				level++;
+				if (level == stack.length) {
+					stack = Arrays.copyOf(stack, level * 2);
+					indexes = Arrays.copyOf(indexes, level * 2);
+					states = Arrays.copyOf(states, level * 2);
+				}
+				stack[level] = child;
+				indexes[level] = nextIndex++;
+				states[level] = 0;
+			} else {
+				if (order == TRAVERSAL_ORDERS.POST_ORDER) {
+					visitNode(visitor, stack, indexes, level);
+				}
+				level--;
 			}
 		}
 	}
 
+	private void visitNode(RedBlackTreeVisitor<T> visitor, RedBlackTreeNode<T>[] stack, int[] indexes, int level) {
+		RedBlackTreeNode<T> node = stack[level];
+		if (node.getKey() == null || node.getColor() == null) {
+			return;
+		}
+		if (level == 0) {
+			visitor.visit(node, 0, "root", indexes[0], -1);
+		} else if (node == stack[level - 1].getLeftChild()) {
+			visitor.visit(node, level, "left child", indexes[level], indexes[level - 1]);
+		} else {
+			visitor.visit(node, level, "right child", indexes[level], indexes[level - 1]);
+		}
+	}
+
 	/**
 	 * From red black tree to array list adding with pre order principle
 	 * 
@@ -395,7 +748,9 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 */
 	public ArrayList<T> toPreOrderList() {
 		ArrayList<T> list = new ArrayList<T>();
-		fromRBTtoPreOrderList(root, list);
+		if (root != nil) {
+			fromRBTtoPreOrderList(root, list);
+		}
 		return list;
 	}
 
@@ -419,7 +774,9 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 */
 	public ArrayList<T> toInOrderList() {
 		ArrayList<T> list = new ArrayList<T>();
-		fromRBTtoInOrderList(root, list);
+		if (root != nil) {
+			fromRBTtoInOrderList(root, list);
+		}
 		return list;
 	}
 
@@ -443,7 +800,9 @@ public class RedBlackTree<T extends Comparable<T>> {
 	 */
 	public ArrayList<T> toPostOrderList() {
 		ArrayList<T> list = new ArrayList<T>();
-		fromRBTtoPostOrderList(root, list);
+		if (root != nil) {
+			fromRBTtoPostOrderList(root, list);
+		}
 		return list;
 	}
 
@@ -0,0 +1,377 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is an asynchronous front-end for a red black tree. Many threads
+ * can submit insert, delete and search operations, each one answered by a
+ * CompletableFuture, while a single owner thread is the only one that touches
+ * the tree. The operations are queued in a bounded lock-free queue and the
+ * owner applies them in batches sorted by key, so consecutive operations
+ * continue the descent from the node reached by the previous one instead of
+ * restarting from the root. Operations on the same key are applied in
+ * submission order.
+ *
+ * The pipeline is not a throughput win by itself: on a single processor it is
+ * slower than a tree shared with synchronized blocks, because the submitters
+ * and the owner compete for the same core. The RBTPipelineBenchmark example
+ * compares the two approaches on the machine where it runs.
+ *
+ * Once the pipeline is created the tree must not be used directly by other
+ * threads. The futures are completed by the owner thread, so the dependent
+ * actions registered with the non-async methods of CompletableFuture run on
+ * it and delay the other operations. Such actions may submit new operations
+ * and may close the pipeline: on the owner thread the operations are queued
+ * in a local list without waiting for room in the queue, and close does not
+ * wait for the owner to stop. They must never wait for a future of the same
+ * pipeline, because only the owner can complete it.
+ *
+ * @param <T>
+ *            generic key for the nodes
+ */
+public class RedBlackTreeCommandPipeline<T extends Comparable<T>> implements AutoCloseable {
+
+	private static enum COMMAND_TYPES {
+		INSERT, DELETE, SEARCH
+	};
+
+	/**
+	 * An operation waiting in the queue
+	 */
+	private static class Command<T> {
+		private final COMMAND_TYPES type;
+		private final T key;
+		private final CompletableFuture<Object> future;
+
+		private Command(COMMAND_TYPES type, T key) {
+			this.type = type;
+			this.key = key;
+			this.future = new CompletableFuture<Object>();
+		}
+	}
+
+	private static final int SPINS_BEFORE_PARK = 64;
+	private static final int SLOTS_PER_WAKEUP = 64;
+
+	private final RedBlackTree<T> tree;
+	private final int batchSize;
+	private final Thread owner;
+
+	// bounded multi producer queue: a slot can be written when its sequence
+	// equals the tail position and read when it equals the head position + 1
+	private final AtomicReferenceArray<Command<T>> slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail;
+	private long head;
+
+	// operations submitted by the owner thread itself, for example from the
+	// dependent actions of a completed future
+	private final ArrayDeque<Command<T>> ownerCommands;
+
+	private final AtomicInteger activeSubmitters;
+	// submitters parked because the queue is full, woken by the owner when it
+	// takes operations from the queue
+	private final ConcurrentLinkedQueue<Thread> waitingSubmitters;
+	private volatile boolean ownerParked;
+	private volatile boolean closed;
+
+	/**
+	 * Create a new pipeline and start its owner thread
+	 *
+	 * @param tree
+	 *            The RBT owned by the pipeline
+	 * @param capacity
+	 *            The maximum number of queued operations, rounded up to a power
+	 *            of two. Submitters wait when the queue is full.
+	 * @param batchSize
+	 *            The maximum number of operations applied in a single batch
+	 */
+	public RedBlackTreeCommandPipeline(RedBlackTree<T> tree, int capacity, int batchSize) {
+		if (capacity < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("capacity and batchSize must be positive");
+		}
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.tree = tree;
+		this.batchSize = batchSize;
+		this.slots = new AtomicReferenceArray<Command<T>>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.tail = new AtomicLong();
+		this.ownerCommands = new ArrayDeque<Command<T>>();
+		this.activeSubmitters = new AtomicInteger();
+		this.waitingSubmitters = new ConcurrentLinkedQueue<Thread>();
+		this.owner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "rbt-command-pipeline");
+		this.owner.setDaemon(true);
+		this.owner.start();
+	}
+
+	/**
+	 * Insert a new node in the red black tree
+	 *
+	 * @param key
+	 *            The key value of the new node
+	 * @return A future completed when the node has been inserted
+	 */
+	public CompletableFuture<Void> insert(T key) {
+		return submit(COMMAND_TYPES.INSERT, key);
+	}
+
+	/**
+	 * Delete a node with the key equals to the key parameter
+	 *
+	 * @param key
+	 *            The key of the node to delete
+	 * @return A future completed with true if a node has been deleted, false
+	 *         if there was no node with the key
+	 */
+	public CompletableFuture<Boolean> delete(T key) {
+		return submit(COMMAND_TYPES.DELETE, key);
+	}
+
+	/**
+	 * Search the node with the key equals to the key parameter
+	 *
+	 * @param key
+	 *            The key used to find the node
+	 * @return A future completed with the key of the node found or null
+	 */
+	public CompletableFuture<T> search(T key) {
+		return submit(COMMAND_TYPES.SEARCH, key);
+	}
+
+	/**
+	 * Stop accepting new operations and wait until the queued ones have been
+	 * applied. If the current thread is interrupted the wait ends and the
+	 * interrupt status is restored. When called by the owner thread it does
+	 * not wait, the owner stops after the queued operations.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		unparkSubmitters(Integer.MAX_VALUE);
+		if (Thread.currentThread() == owner) {
+			return;
+		}
+		LockSupport.unpark(owner);
+		try {
+			owner.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> CompletableFuture<R> submit(COMMAND_TYPES type, T key) {
+		if (key == null) {
+			throw new NullPointerException("key");
+		}
+		Command<T> command = new Command<T>(type, key);
+		if (Thread.currentThread() == owner) {
+			// only the owner drains the queue, it must not wait for room
+			if (closed) {
+				throw new IllegalStateException("The pipeline is closed");
+			}
+			ownerCommands.add(command);
+			return (CompletableFuture<R>) (CompletableFuture<?>) command.future;
+		}
+		activeSubmitters.incrementAndGet();
+		try {
+			int spins = 0;
+			while (true) {
+				if (closed) {
+					throw new IllegalStateException("The pipeline is closed");
+				}
+				if (offer(command)) {
+					break;
+				}
+				// the queue is full, spin for a while and then park until the
+				// owner takes some operations from the queue
+				if (++spins < SPINS_BEFORE_PARK) {
+					Thread.onSpinWait();
+					continue;
+				}
+				Thread current = Thread.currentThread();
+				waitingSubmitters.add(current);
+				try {
+					// check again after being added, the owner may have made
+					// room before looking for waiting submitters
+					if (closed) {
+						throw new IllegalStateException("The pipeline is closed");
+					}
+					if (offer(command)) {
+						break;
+					}
+					LockSupport.park(this);
+				} finally {
+					waitingSubmitters.remove(current);
+				}
+			}
+		} finally {
+			activeSubmitters.decrementAndGet();
+		}
+		if (ownerParked) {
+			LockSupport.unpark(owner);
+		}
+		return (CompletableFuture<R>) (CompletableFuture<?>) command.future;
+	}
+
+	private boolean offer(Command<T> command) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, command);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	private Command<T> poll() {
+		int index = (int) (head & mask);
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		Command<T> command = slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, head + mask + 1);
+		head++;
+		return command;
+	}
+
+	/**
+	 * Wake some of the submitters waiting for room in the queue. The woken
+	 * ones are removed from the waiting list, so a submitter that fails again
+	 * and adds itself back is not woken twice by the same call.
+	 */
+	private void unparkSubmitters(int count) {
+		Thread submitter;
+		for (int i = 0; i < count && (submitter = waitingSubmitters.poll()) != null; i++) {
+			LockSupport.unpark(submitter);
+		}
+	}
+
+	private boolean isEmpty() {
+		return sequences.get((int) (head & mask)) != head + 1;
+	}
+
+	/**
+	 * The loop of the owner thread
+	 */
+	private void drainLoop() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Command<T>[] batch = new Command[batchSize];
+		Comparator<Command<T>> byKey = new Comparator<Command<T>>() {
+			@Override
+			public int compare(Command<T> c1, Command<T> c2) {
+				return c1.key.compareTo(c2.key);
+			}
+		};
+
+		while (true) {
+			int size = 0;
+			Command<T> command;
+			while (size < batchSize && (command = ownerCommands.poll()) != null) {
+				batch[size++] = command;
+			}
+			int fromOwner = size;
+			while (size < batchSize && (command = poll()) != null) {
+				batch[size++] = command;
+			}
+			if (size > fromOwner && !waitingSubmitters.isEmpty()) {
+				// a woken submitter keeps offering until the queue is full
+				// again, so a few of them are enough to fill the free slots;
+				// the others are woken by the next batches
+				unparkSubmitters((size - fromOwner) / SLOTS_PER_WAKEUP + 1);
+			}
+
+			if (size > 0) {
+				applyBatch(batch, size, byKey);
+				Arrays.fill(batch, 0, size, null);
+			} else if (closed) {
+				if (activeSubmitters.get() == 0 && isEmpty()) {
+					return;
+				}
+				Thread.yield();
+			} else {
+				ownerParked = true;
+				if (isEmpty() && !closed) {
+					LockSupport.park(this);
+				}
+				ownerParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Apply a batch of operations sorted by key. The sort is stable, so the
+	 * operations on the same key keep their submission order.
+	 */
+	private void applyBatch(Command<T>[] batch, int size, Comparator<Command<T>> byKey) {
+		try {
+			Arrays.sort(batch, 0, size, byKey);
+		} catch (RuntimeException e) {
+			// keys that cannot be compared, fail the whole batch
+			for (int i = 0; i < size; i++) {
+				batch[i].future.completeExceptionally(e);
+			}
+			return;
+		}
+
+		RedBlackTreeNode<T> finger = null;
+		for (int i = 0; i < size; i++) {
+			Command<T> command = batch[i];
+			try {
+				if (command.type == COMMAND_TYPES.INSERT) {
+					finger = tree.insertFrom(finger, command.key);
+					command.future.complete(null);
+				} else {
+					RedBlackTreeNode<T> node = tree.searchFrom(finger, command.key);
+					if (command.type == COMMAND_TYPES.SEARCH) {
+						if (node != null) {
+							finger = node;
+						}
+						command.future.complete(node != null ? node.getKey() : null);
+					} else if (node == null) {
+						command.future.complete(Boolean.FALSE);
+					} else {
+						// the predecessor is not moved by the delete, so it
+						// remains a valid finger
+						finger = tree.treePredecessor(node);
+						tree.delete(node);
+						command.future.complete(Boolean.TRUE);
+					}
+				}
+			} catch (RuntimeException e) {
+				finger = null;
+				command.future.completeExceptionally(e);
+			}
+		}
+	}
+}
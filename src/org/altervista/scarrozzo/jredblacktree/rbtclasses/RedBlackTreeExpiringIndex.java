@@ -0,0 +1,298 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This class is an ordered deadline index for timeouts and sessions. Every
+ * value is added with an expiry time and the expired values are removed
+ * incrementally in bounded slices, at most a given number of deletions or a
+ * given time budget per call, so there is never a long pause for a full sweep.
+ * The entry with the nearest deadline is tracked, so the next deadline is read
+ * in O(1).
+ *
+ * The methods are synchronized, so the eviction can run on a background
+ * scheduler while other threads add and remove entries.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class RedBlackTreeExpiringIndex<V> {
+
+	/**
+	 * A value of the index with its deadline
+	 *
+	 * @param <V>
+	 *            the type of the value
+	 */
+	public static class Entry<V> implements Comparable<Entry<V>> {
+		private final RedBlackTreeExpiringIndex<V> index;
+		private final V value;
+		private final long deadline;
+		private final long sequence;
+		// written under the lock of the index, volatile for isActive
+		private volatile RedBlackTreeNode<Entry<V>> node;
+
+		private Entry(RedBlackTreeExpiringIndex<V> index, V value, long deadline, long sequence) {
+			this.index = index;
+			this.value = value;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		/**
+		 * Get the time, in milliseconds of the clock of the index, at which
+		 * the entry expires
+		 *
+		 * @return The deadline
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Show if the entry is still in the index
+		 *
+		 * @return false if the entry expired or has been removed
+		 */
+		public boolean isActive() {
+			return node != null;
+		}
+
+		/**
+		 * Entries are ordered by deadline, the entries with the same deadline
+		 * by insertion order
+		 */
+		@Override
+		public int compareTo(Entry<V> other) {
+			if (deadline != other.deadline) {
+				return deadline < other.deadline ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final RedBlackTree<Entry<V>> tree;
+	private final Clock clock;
+	private RedBlackTreeNode<Entry<V>> first;
+	private long nextSequence;
+	private int size;
+
+	/**
+	 * Create a new empty index using the system clock
+	 */
+	public RedBlackTreeExpiringIndex() {
+		this(Clock.systemUTC());
+	}
+
+	/**
+	 * Create a new empty index
+	 *
+	 * @param clock
+	 *            The clock used to compute the deadlines and to find the
+	 *            expired entries
+	 */
+	public RedBlackTreeExpiringIndex(Clock clock) {
+		this.tree = new RedBlackTree<Entry<V>>();
+		this.clock = clock;
+	}
+
+	/**
+	 * Add a value that expires after a time to live
+	 *
+	 * @param value
+	 *            The value
+	 * @param ttlMillis
+	 *            The time to live in milliseconds, not negative. When the
+	 *            deadline would overflow it is Long.MAX_VALUE, so a time to live
+	 *            of Long.MAX_VALUE means that the value never expires.
+	 * @return The entry of the value, useful to remove it before it expires
+	 */
+	public Entry<V> put(V value, long ttlMillis) {
+		if (ttlMillis < 0) {
+			throw new IllegalArgumentException("ttlMillis must not be negative");
+		}
+		long deadline;
+		try {
+			deadline = Math.addExact(clock.millis(), ttlMillis);
+		} catch (ArithmeticException e) {
+			deadline = Long.MAX_VALUE;
+		}
+		return putUntil(value, deadline);
+	}
+
+	/**
+	 * Add a value that expires at a deadline
+	 *
+	 * @param value
+	 *            The value
+	 * @param deadline
+	 *            The expiry time in milliseconds of the clock of the index
+	 * @return The entry of the value, useful to remove it before it expires
+	 */
+	public synchronized Entry<V> putUntil(V value, long deadline) {
+		Entry<V> entry = new Entry<V>(this, value, deadline, nextSequence++);
+		entry.node = tree.insertFrom(null, entry);
+		if (first == null || entry.compareTo(first.getKey()) < 0) {
+			first = entry.node;
+		}
+		size++;
+		return entry;
+	}
+
+	/**
+	 * Remove an entry before it expires
+	 *
+	 * @param entry
+	 *            The entry to remove
+	 * @return true if the entry was in the index, false if it expired, has
+	 *         already been removed or belongs to another index
+	 */
+	public synchronized boolean remove(Entry<V> entry) {
+		if (entry.index != this || entry.node == null) {
+			return false;
+		}
+		deleteNode(entry.node);
+		return true;
+	}
+
+	/**
+	 * Get the nearest deadline
+	 *
+	 * @return The deadline of the first entry to expire or Long.MAX_VALUE if
+	 *         the index is empty
+	 */
+	public synchronized long getNextDeadline() {
+		return first == null ? Long.MAX_VALUE : first.getKey().getDeadline();
+	}
+
+	/**
+	 * Get the number of entries in the index
+	 *
+	 * @return The number of entries
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Remove the entries expired at the current time of the clock
+	 *
+	 * @param limit
+	 *            The maximum number of entries to remove
+	 * @return The values of the removed entries, in deadline order
+	 */
+	public ArrayList<V> pollExpired(int limit) {
+		return pollExpired(clock.millis(), limit);
+	}
+
+	/**
+	 * Remove the entries expired at a given time
+	 *
+	 * @param now
+	 *            The current time in milliseconds of the clock of the index
+	 * @param limit
+	 *            The maximum number of entries to remove
+	 * @return The values of the removed entries, in deadline order
+	 */
+	public ArrayList<V> pollExpired(long now, int limit) {
+		return pollExpired(now, limit, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Remove the entries expired at a given time, stopping when the limit or
+	 * the time budget is reached. At least one expired entry is removed
+	 * whatever the budget, so repeated calls always make progress.
+	 *
+	 * @param now
+	 *            The current time in milliseconds of the clock of the index
+	 * @param limit
+	 *            The maximum number of entries to remove
+	 * @param budgetNanos
+	 *            The maximum time to spend removing entries
+	 * @return The values of the removed entries, in deadline order
+	 */
+	public synchronized ArrayList<V> pollExpired(long now, int limit, long budgetNanos) {
+		ArrayList<V> expired = new ArrayList<V>(Math.max(0, Math.min(limit, Math.min(size, 1024))));
+		long start = System.nanoTime();
+		while (first != null && expired.size() < limit && first.getKey().getDeadline() <= now) {
+			if (!expired.isEmpty() && System.nanoTime() - start >= budgetNanos) {
+				break;
+			}
+			Entry<V> entry = first.getKey();
+			deleteNode(first);
+			expired.add(entry.getValue());
+		}
+		return expired;
+	}
+
+	/**
+	 * Run the eviction periodically on a scheduler
+	 *
+	 * @param scheduler
+	 *            The scheduler running the eviction
+	 * @param periodMillis
+	 *            The time between two runs in milliseconds
+	 * @param limit
+	 *            The maximum number of entries removed by each run
+	 * @param listener
+	 *            Called with every expired value, can be null. The exceptions
+	 *            it throws are passed to the uncaught exception handler of the
+	 *            scheduler thread and do not stop the eviction.
+	 * @return The scheduled task, to be cancelled to stop the eviction
+	 */
+	public ScheduledFuture<?> scheduleEviction(ScheduledExecutorService scheduler, long periodMillis, final int limit,
+			final Consumer<? super V> listener) {
+		return scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				// an exception escaping run would cancel the next runs, so it
+				// is only reported to the handler of the current thread
+				try {
+					ArrayList<V> expired = pollExpired(limit);
+					if (listener != null) {
+						for (V value : expired) {
+							try {
+								listener.accept(value);
+							} catch (RuntimeException e) {
+								report(e);
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					report(e);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static void report(RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+
+	/**
+	 * Delete a node keeping track of the first node. The successor is not
+	 * moved by the delete, so it can be taken before.
+	 *
+	 * @param node
+	 *            The node to delete
+	 */
+	private void deleteNode(RedBlackTreeNode<Entry<V>> node) {
+		if (node == first) {
+			RedBlackTreeNode<Entry<V>> successor = tree.treeSuccessor(node);
+			first = successor == tree.getNilNode() ? null : successor;
+		}
+		tree.delete(node);
+		node.getKey().node = null;
+		size--;
+	}
+}
@@ -0,0 +1,275 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.altervista.scarrozzo.jredblacktree.rbtclasses.RedBlackTree.TRAVERSAL_ORDERS;
+
+/**
+ * This class exports the nodes of a red black tree to an Appendable or an
+ * OutputStream as plain text, CSV or Graphviz DOT. The output is collected in a
+ * reusable buffer and written in large chunks, so the same exporter can be used
+ * for many exports without creating a new String for every node.
+ *
+ * @param <T>
+ *            generic key for the nodes
+ */
+public class RedBlackTreeExporter<T extends Comparable<T>> {
+
+	public static enum EXPORT_FORMATS {
+		TEXT, CSV, DOT
+	};
+
+	private static final int FLUSH_THRESHOLD = 8192;
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private final Appendable out;
+	private final EXPORT_FORMATS format;
+	private final StringBuilder buffer;
+	private final RedBlackTreeVisitor<T> nodeWriter = new NodeWriter();
+	private char[] chars;
+
+	/**
+	 * Create a new exporter writing plain text on the given Appendable
+	 *
+	 * @param out
+	 *            The destination of the export
+	 */
+	public RedBlackTreeExporter(Appendable out) {
+		this(out, EXPORT_FORMATS.TEXT);
+	}
+
+	/**
+	 * Create a new exporter writing on the given Appendable
+	 *
+	 * @param out
+	 *            The destination of the export
+	 * @param format
+	 *            The output format
+	 */
+	public RedBlackTreeExporter(Appendable out, EXPORT_FORMATS format) {
+		this.out = out;
+		this.format = format;
+		this.buffer = new StringBuilder(FLUSH_THRESHOLD + 256);
+	}
+
+	/**
+	 * Create a new exporter writing encoded text on the given OutputStream
+	 *
+	 * @param out
+	 *            The destination of the export
+	 * @param format
+	 *            The output format
+	 * @param charset
+	 *            The charset used to encode the text
+	 */
+	public RedBlackTreeExporter(OutputStream out, EXPORT_FORMATS format, Charset charset) {
+		this(new OutputStreamWriter(out, charset), format);
+	}
+
+	/**
+	 * Export all the nodes of the tree with the given order
+	 *
+	 * @param tree
+	 *            The RBT to export
+	 * @param order
+	 *            The traversal order
+	 * @throws IOException
+	 *             If the destination cannot be written
+	 */
+	public void export(RedBlackTree<T> tree, TRAVERSAL_ORDERS order) throws IOException {
+		buffer.setLength(0);
+
+		if (format == EXPORT_FORMATS.CSV) {
+			buffer.append("level,key,color,type_child,parent").append(LINE_SEPARATOR);
+		} else if (format == EXPORT_FORMATS.DOT) {
+			buffer.append("digraph RBT {").append(LINE_SEPARATOR);
+			buffer.append("\tnode [style=filled, fontcolor=white];").append(LINE_SEPARATOR);
+		}
+
+		try {
+			tree.visitAllNodes(order, nodeWriter);
+		} catch (ExportFailedException e) {
+			// a failed write stops the traversal, the rest of the tree is not
+			// visited
+			buffer.setLength(0);
+			throw e.getCause();
+		}
+
+		if (format == EXPORT_FORMATS.DOT) {
+			buffer.append('}').append(LINE_SEPARATOR);
+		}
+		flushBuffer();
+
+		if (out instanceof Flushable) {
+			((Flushable) out).flush();
+		}
+	}
+
+	/**
+	 * Append a node to the buffer, used by the traversal of the tree
+	 *
+	 * @param node
+	 *            The visited node
+	 * @param level
+	 *            The level of the node
+	 * @param typeChild
+	 *            The type of child of the node
+	 * @param index
+	 *            The pre-order index of the node
+	 * @param parentIndex
+	 *            The index of the parent node or -1 for the root
+	 * @throws IOException
+	 *             If the buffer is full and the destination cannot be written
+	 */
+	private void appendNode(RedBlackTreeNode<T> node, int level, String typeChild, int index, int parentIndex)
+			throws IOException {
+		if (format == EXPORT_FORMATS.TEXT) {
+			buffer.append("Node at level ").append(level).append(". Key: ");
+			appendKey(node.getKey());
+			buffer.append(". Color: ").append(node.getColor().name()).append(". Type child: ").append(typeChild)
+					.append(". Parent: ");
+			appendKey(node.getParent().getKey());
+		} else if (format == EXPORT_FORMATS.CSV) {
+			buffer.append(level).append(',');
+			appendCsvKey(node.getKey());
+			buffer.append(',').append(node.getColor().name()).append(',').append(typeChild).append(',');
+			appendCsvKey(node.getParent().getKey());
+		} else {
+			buffer.append("\tn").append(index).append(" [label=\"");
+			appendDotKey(node.getKey());
+			buffer.append("\\nlevel ").append(level).append("\", fillcolor=")
+					.append(node.getColor() == RedBlackTreeNode.RBT_COLORS.RED ? "red" : "black").append("];");
+			if (parentIndex >= 0) {
+				buffer.append(LINE_SEPARATOR).append("\tn").append(parentIndex).append(" -> n").append(index)
+						.append(" [label=\"").append(typeChild).append("\"];");
+			}
+		}
+		buffer.append(LINE_SEPARATOR);
+
+		if (buffer.length() >= FLUSH_THRESHOLD) {
+			flushBuffer();
+		}
+	}
+
+	/**
+	 * Write the content of the buffer to the destination and clear it
+	 *
+	 * @throws IOException
+	 *             If the destination cannot be written
+	 */
+	private void flushBuffer() throws IOException {
+		int length = buffer.length();
+		if (length == 0) {
+			return;
+		}
+		if (out instanceof Writer) {
+			if (chars == null || chars.length < length) {
+				chars = new char[Math.max(length, FLUSH_THRESHOLD + 256)];
+			}
+			buffer.getChars(0, length, chars, 0);
+			((Writer) out).write(chars, 0, length);
+		} else {
+			out.append(buffer);
+		}
+		buffer.setLength(0);
+	}
+
+	/**
+	 * Append a key to the buffer. Integer and long keys are appended without
+	 * creating an intermediate String.
+	 *
+	 * @param key
+	 *            The key to append
+	 */
+	private void appendKey(Object key) {
+		if (key instanceof Integer) {
+			buffer.append(((Integer) key).intValue());
+		} else if (key instanceof Long) {
+			buffer.append(((Long) key).longValue());
+		} else {
+			buffer.append(key);
+		}
+	}
+
+	private void appendCsvKey(Object key) {
+		if (key == null) {
+			return;
+		}
+		if (key instanceof Number) {
+			appendKey(key);
+			return;
+		}
+		String value = key.toString();
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			buffer.append(value);
+			return;
+		}
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				buffer.append('"');
+			}
+			buffer.append(c);
+		}
+		buffer.append('"');
+	}
+
+	private void appendDotKey(Object key) {
+		if (key instanceof Number) {
+			appendKey(key);
+			return;
+		}
+		String value = String.valueOf(key);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				buffer.append('\\');
+			}
+			buffer.append(c);
+		}
+	}
+
+	/**
+	 * The visitor passed to the tree, kept private so the nodes can be appended
+	 * only during an export
+	 */
+	private class NodeWriter implements RedBlackTreeVisitor<T> {
+
+		@Override
+		public void visit(RedBlackTreeNode<T> node, int level, String typeChild, int index, int parentIndex) {
+			try {
+				appendNode(node, level, typeChild, index, parentIndex);
+			} catch (IOException e) {
+				throw new ExportFailedException(e);
+			}
+		}
+	}
+
+	/**
+	 * Carries a write error out of the traversal
+	 */
+	private static class ExportFailedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ExportFailedException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+}
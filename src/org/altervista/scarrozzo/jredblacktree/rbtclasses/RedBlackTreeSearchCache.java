@@ -0,0 +1,225 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+/**
+ * This class is a bounded cache that maps the recently searched keys of a red
+ * black tree to their nodes. The entries are kept in an open addressing table
+ * with linear probing and, when the cache is full, the entry to evict is chosen
+ * with the CLOCK algorithm: the hand skips (and clears) the entries that have
+ * been hit since its last pass.
+ *
+ * The cache is managed by the tree, see
+ * {@link RedBlackTree#enableSearchCache(int)}. Like the tree it is not thread
+ * safe, and since every search changes it, even the searches of different
+ * threads must not run at the same time.
+ *
+ * @param <T>
+ *            generic key for the nodes
+ */
+public class RedBlackTreeSearchCache<T extends Comparable<T>> {
+
+	private final int capacity;
+	private final int shift;
+	private final int mask;
+	private final Object[] keys;
+	private final RedBlackTreeNode<T>[] nodes;
+	private final boolean[] referenced;
+	private int size;
+	private int hand;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a new empty cache
+	 *
+	 * @param capacity
+	 *            The maximum number of entries
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	RedBlackTreeSearchCache(int capacity) {
+		if (capacity < 1 || capacity > (1 << 29)) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^29");
+		}
+		// keep the load factor at most 0.5 so the probe sequences stay short
+		int bits = 32 - Integer.numberOfLeadingZeros(capacity * 2 - 1);
+		this.capacity = capacity;
+		this.shift = 32 - bits;
+		this.mask = (1 << bits) - 1;
+		this.keys = new Object[1 << bits];
+		this.nodes = new RedBlackTreeNode[1 << bits];
+		this.referenced = new boolean[1 << bits];
+	}
+
+	/**
+	 * Get the cached node of a key
+	 *
+	 * @param key
+	 *            The searched key
+	 * @return The cached node or null
+	 */
+	RedBlackTreeNode<T> get(T key) {
+		for (int i = indexOf(key);; i = (i + 1) & mask) {
+			Object k = keys[i];
+			if (k == null) {
+				misses++;
+				return null;
+			}
+			if (k.equals(key)) {
+				referenced[i] = true;
+				hits++;
+				return nodes[i];
+			}
+		}
+	}
+
+	/**
+	 * Cache the node found for its key, evicting an entry if the cache is
+	 * full
+	 *
+	 * @param node
+	 *            The node found by a search
+	 */
+	void put(RedBlackTreeNode<T> node) {
+		T key = node.getKey();
+		int i = indexOf(key);
+		for (Object k = keys[i]; k != null; k = keys[i]) {
+			if (k.equals(key)) {
+				nodes[i] = node;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size == capacity) {
+			evict();
+			// the eviction may have moved entries, look for a free slot again
+			i = indexOf(key);
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+		}
+		keys[i] = key;
+		nodes[i] = node;
+		referenced[i] = false;
+		size++;
+	}
+
+	/**
+	 * Remove the entry of a node, used when the node is deleted from the tree
+	 *
+	 * @param node
+	 *            The deleted node
+	 */
+	void remove(RedBlackTreeNode<T> node) {
+		T key = node.getKey();
+		for (int i = indexOf(key); keys[i] != null; i = (i + 1) & mask) {
+			if (nodes[i] == node) {
+				removeAt(i);
+				return;
+			}
+		}
+	}
+
+	private void evict() {
+		while (true) {
+			hand = (hand + 1) & mask;
+			if (keys[hand] != null) {
+				if (referenced[hand]) {
+					referenced[hand] = false;
+				} else {
+					removeAt(hand);
+					evictions++;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry at a slot shifting back the following entries of the
+	 * probe sequence, so no tombstone is needed
+	 */
+	private void removeAt(int i) {
+		size--;
+		int j = i;
+		while (true) {
+			keys[i] = null;
+			nodes[i] = null;
+			referenced[i] = false;
+			int home;
+			do {
+				j = (j + 1) & mask;
+				if (keys[j] == null) {
+					return;
+				}
+				home = indexOf(keys[j]);
+				// the entry at j stays if its home slot is cyclically in (i, j]
+			} while (i <= j ? (i < home && home <= j) : (i < home || home <= j));
+			keys[i] = keys[j];
+			nodes[i] = nodes[j];
+			referenced[i] = referenced[j];
+			i = j;
+		}
+	}
+
+	private int indexOf(Object key) {
+		int h = key.hashCode();
+		return ((h ^ (h >>> 16)) * 0x9E3779B9) >>> shift & mask;
+	}
+
+	/**
+	 * Get the maximum number of entries
+	 *
+	 * @return The capacity of the cache
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the current number of entries
+	 *
+	 * @return The size of the cache
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the number of searches answered by the cache
+	 *
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of searches that had to walk the tree
+	 *
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get the number of entries evicted to make room for new ones
+	 *
+	 * @return The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Get the ratio between hits and searches
+	 *
+	 * @return The hit rate, 0 if no search has been done
+	 */
+	public double getHitRate() {
+		long searches = hits + misses;
+		return searches == 0 ? 0 : (double) hits / searches;
+	}
+}
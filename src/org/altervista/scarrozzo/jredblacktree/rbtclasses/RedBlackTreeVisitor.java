@@ -0,0 +1,29 @@
+package org.altervista.scarrozzo.jredblacktree.rbtclasses;
+
+/**
+ * This interface represent a visitor called for every node during a traversal
+ * of a red black tree
+ *
+ * @param <T>
+ *            generic key for the nodes
+ */
+public interface RedBlackTreeVisitor<T extends Comparable<T>> {
+
+	/**
+	 * Called once for every node of the tree
+	 *
+	 * @param node
+	 *            The visited node
+	 * @param level
+	 *            The level of the node (the root is at level 0)
+	 * @param typeChild
+	 *            show if the node is the root, the left or the right child of
+	 *            the parent node
+	 * @param index
+	 *            The position of the node in pre-order, unique for each node of
+	 *            the traversal
+	 * @param parentIndex
+	 *            The index of the parent node or -1 for the root
+	 */
+	void visit(RedBlackTreeNode<T> node, int level, String typeChild, int index, int parentIndex);
+}